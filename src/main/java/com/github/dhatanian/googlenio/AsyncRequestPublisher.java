@@ -0,0 +1,257 @@
+package com.github.dhatanian.googlenio;
+
+import com.google.api.client.googleapis.services.AbstractGoogleClientRequest;
+import com.google.api.client.util.Preconditions;
+import org.apache.http.concurrent.FutureCallback;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executes the requests emitted by a {@link Publisher} with {@link GoogleAsyncClient}, and publishes their results.
+ * <p/>
+ * At most <code>maxConcurrency</code> requests are requested from upstream, executing or waiting to be consumed at
+ * any time: new requests are only pulled when a result is consumed downstream, so memory stays bounded whatever the
+ * size of the input. Results are published in the order of the requests, or as soon as they are available.
+ * <p/>
+ * Only one subscriber is supported.
+ * <p/>
+ * Usage :
+ * <pre>
+ * {@code
+ * Publisher<Directory.Users.Update> updates = ...
+ * new AsyncRequestPublisher<>(updates, 20, false).subscribe(new Subscriber<RequestResult<User>>() {
+ *     ...
+ * });
+ * }
+ * </pre>
+ */
+public class AsyncRequestPublisher<T> implements Publisher<RequestResult<T>> {
+    private final Publisher<? extends AbstractGoogleClientRequest<T>> requests;
+    private final int maxConcurrency;
+    private final boolean ordered;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    /**
+     * @param requests       the requests to execute
+     * @param maxConcurrency the maximum number of requests pulled from upstream and not consumed downstream yet
+     * @param ordered        whether results are published in the order of the requests
+     */
+    public AsyncRequestPublisher(Publisher<? extends AbstractGoogleClientRequest<T>> requests, int maxConcurrency, boolean ordered) {
+        Preconditions.checkArgument(maxConcurrency > 0, "maxConcurrency must be positive");
+        this.requests = Preconditions.checkNotNull(requests);
+        this.maxConcurrency = maxConcurrency;
+        this.ordered = ordered;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super RequestResult<T>> subscriber) {
+        Preconditions.checkNotNull(subscriber);
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("Only one subscriber is supported"));
+            return;
+        }
+        requests.subscribe(new BulkSubscription(subscriber));
+    }
+
+    private static class Slot<T> {
+        private RequestResult<T> result;
+    }
+
+    private class BulkSubscription implements Subscriber<AbstractGoogleClientRequest<T>>, Subscription {
+        private final Subscriber<? super RequestResult<T>> downstream;
+        private final AtomicInteger drainers = new AtomicInteger();
+        // Ordered : every executing or completed request, in arrival order. Unordered : completed requests only.
+        private final Queue<Slot<T>> pending = new ArrayDeque<>();
+        private Subscription upstream;
+        private long requested;
+        private long upstreamDemand;
+        private int inFlight;
+        private boolean upstreamDone;
+        private Throwable upstreamError;
+        private Throwable invalidRequest;
+        private boolean cancelled;
+        private boolean terminated;
+
+        public BulkSubscription(Subscriber<? super RequestResult<T>> downstream) {
+            this.downstream = downstream;
+        }
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            synchronized (this) {
+                if (upstream != null) {
+                    subscription.cancel();
+                    return;
+                }
+                upstream = subscription;
+            }
+            downstream.onSubscribe(this);
+            drain();
+        }
+
+        @Override
+        public void onNext(final AbstractGoogleClientRequest<T> request) {
+            Preconditions.checkNotNull(request);
+            final Slot<T> slot = new Slot<>();
+            synchronized (this) {
+                upstreamDemand--;
+                inFlight++;
+                if (ordered) {
+                    pending.add(slot);
+                }
+            }
+            try {
+                GoogleAsyncClient.executeAsync(request, new FutureCallback<T>() {
+                    @Override
+                    public void completed(T result) {
+                        complete(slot, RequestResult.success(request, result));
+                    }
+
+                    @Override
+                    public void failed(Exception ex) {
+                        complete(slot, RequestResult.<T>failure(request, ex));
+                    }
+
+                    @Override
+                    public void cancelled() {
+                        complete(slot, RequestResult.<T>failure(request, new CancellationException("Request cancelled")));
+                    }
+                });
+            } catch (Exception e) {
+                complete(slot, RequestResult.<T>failure(request, e));
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            synchronized (this) {
+                upstreamError = t;
+                upstreamDone = true;
+            }
+            drain();
+        }
+
+        @Override
+        public void onComplete() {
+            synchronized (this) {
+                upstreamDone = true;
+            }
+            drain();
+        }
+
+        @Override
+        public void request(long n) {
+            synchronized (this) {
+                if (n <= 0) {
+                    invalidRequest = new IllegalArgumentException("Requested " + n + " elements, must be positive");
+                } else {
+                    requested = requested + n < 0 ? Long.MAX_VALUE : requested + n;
+                }
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (this) {
+                cancelled = true;
+                pending.clear();
+            }
+            // Upstream is cancelled by the drain, request() and cancel() must not be called concurrently
+            drain();
+        }
+
+        private void complete(Slot<T> slot, RequestResult<T> result) {
+            synchronized (this) {
+                // Only the first outcome counts, should a callback ever be reported twice
+                if (slot.result != null) {
+                    return;
+                }
+                slot.result = result;
+                if (!ordered && !cancelled) {
+                    pending.add(slot);
+                }
+            }
+            drain();
+        }
+
+        /**
+         * Emits the available results, then pulls new requests from upstream for the freed capacity. Signals are only
+         * sent from a single thread at a time, the one that finds no other drain in progress.
+         */
+        private void drain() {
+            if (drainers.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                while (true) {
+                    RequestResult<T> next = null;
+                    Throwable error = null;
+                    boolean complete = false;
+                    boolean cancelUpstream = false;
+                    long toRequest = 0;
+                    synchronized (this) {
+                        if (terminated || upstream == null) {
+                            break;
+                        }
+                        Slot<T> head = pending.peek();
+                        if (cancelled) {
+                            terminated = true;
+                            cancelUpstream = true;
+                        } else if (invalidRequest != null) {
+                            terminated = true;
+                            cancelUpstream = true;
+                            error = invalidRequest;
+                        } else if (requested > 0 && head != null && head.result != null) {
+                            pending.poll();
+                            next = head.result;
+                            requested--;
+                            inFlight--;
+                        } else if (upstreamDone && inFlight == 0) {
+                            terminated = true;
+                            error = upstreamError;
+                            complete = upstreamError == null;
+                        } else if (!upstreamDone && inFlight + upstreamDemand < maxConcurrency) {
+                            toRequest = maxConcurrency - inFlight - upstreamDemand;
+                            upstreamDemand += toRequest;
+                        }
+                    }
+                    if (cancelUpstream) {
+                        upstream.cancel();
+                    }
+                    if (next != null) {
+                        downstream.onNext(next);
+                    } else if (error != null) {
+                        downstream.onError(error);
+                        break;
+                    } else if (complete) {
+                        downstream.onComplete();
+                        break;
+                    } else if (toRequest > 0) {
+                        upstream.request(toRequest);
+                    } else {
+                        break;
+                    }
+                }
+                missed = drainers.addAndGet(-missed);
+            } while (missed != 0);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.github.dhatanian.googlenio;
+
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.impl.conn.SystemDefaultDnsResolver;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DNS resolver keeping the resolved addresses for a fixed time, so that new connections do not pay a lookup.
+ *
+ * @see NIOHttpTransport#warmUp(java.util.Collection, int, long, java.util.concurrent.TimeUnit)
+ */
+public class CachingDnsResolver implements DnsResolver {
+    private final DnsResolver delegate;
+    private final long ttlNanos;
+    private final ConcurrentMap<String, CachedAddresses> cache = new ConcurrentHashMap<>();
+
+    public CachingDnsResolver(long ttl, TimeUnit unit) {
+        this(SystemDefaultDnsResolver.INSTANCE, ttl, unit);
+    }
+
+    public CachingDnsResolver(DnsResolver delegate, long ttl, TimeUnit unit) {
+        this.delegate = delegate;
+        this.ttlNanos = unit.toNanos(ttl);
+    }
+
+    @Override
+    public InetAddress[] resolve(String host) throws UnknownHostException {
+        CachedAddresses cached = cache.get(host);
+        long now = System.nanoTime();
+        if (cached != null && now - cached.resolvedAt < ttlNanos) {
+            return cached.addresses.clone();
+        }
+        InetAddress[] addresses = delegate.resolve(host);
+        cache.put(host, new CachedAddresses(addresses, now));
+        return addresses.clone();
+    }
+
+    private static class CachedAddresses {
+        private final InetAddress[] addresses;
+        private final long resolvedAt;
+
+        public CachedAddresses(InetAddress[] addresses, long resolvedAt) {
+            this.addresses = addresses;
+            this.resolvedAt = resolvedAt;
+        }
+    }
+}
@@ -8,6 +8,7 @@ import org.apache.http.client.entity.DeflateInputStream;
 import org.apache.http.concurrent.FutureCallback;
 import org.apache.http.entity.ContentType;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Constructor;
@@ -59,7 +60,16 @@ import java.util.zip.GZIPInputStream;
  */
 public class GoogleAsyncClient {
     public static <T> void executeAsync(AbstractGoogleClientRequest<T> request, FutureCallback<T> callback) throws IOException {
-        executeAsync(request, callback, false);
+        executeAsync(request, callback, null, false);
+    }
+
+    /**
+     * Same as {@link #executeAsync(AbstractGoogleClientRequest, FutureCallback)}, only fetching the fields selected
+     * by the given {@link PartialResponse}.
+     */
+    public static <T> void executeAsync(AbstractGoogleClientRequest<T> request, FutureCallback<T> callback, PartialResponse partialResponse) throws IOException {
+        partialResponse.applyTo(request);
+        executeAsync(request, callback, partialResponse, false);
     }
 
     private static class ResponseCallback<T> implements FutureCallback<HttpResponse> {
@@ -67,72 +77,98 @@ public class GoogleAsyncClient {
         private HttpRequest request;
         private Class<T> responseClass;
         private AbstractGoogleClientRequest<T> originalRequest;
+        private PartialResponse partialResponse;
         private boolean isRetry;
 
-        public ResponseCallback(FutureCallback<T> callback, HttpRequest request, Class<T> responseClass, AbstractGoogleClientRequest<T> originalRequest, boolean isRetry) {
+        public ResponseCallback(FutureCallback<T> callback, HttpRequest request, Class<T> responseClass, AbstractGoogleClientRequest<T> originalRequest, PartialResponse partialResponse, boolean isRetry) {
             this.callback = callback;
             this.request = request;
             this.responseClass = responseClass;
             this.originalRequest = originalRequest;
+            this.partialResponse = partialResponse;
             this.isRetry = isRetry;
         }
 
         @Override
         public void completed(HttpResponse result) {
+            // Any failure must reach the callback: an exception thrown here would be lost in the I/O reactor thread.
+            // The outcome is only decided here, the callback being signalled once, outside of the try.
             LowLevelHttpResponseProxy lowLevelHttpResponseProxy = new LowLevelHttpResponseProxy(result);
-            com.google.api.client.http.HttpResponse googleHttpResponse = buildGoogleHttpResponse(request, lowLevelHttpResponseProxy);
-            if (!HttpStatusCodes.isSuccess(result.getStatusLine().getStatusCode())) {
-                StringBuilder logger = new StringBuilder();
-                HttpHeaders httpHeaders = new HttpHeaders();
-                try {
-                    httpHeaders.fromHttpResponse(lowLevelHttpResponseProxy, logger);
-                } catch (IOException e) {
-                    throw new RuntimeException("Unable to read headers", e);
-                }
-
-                boolean errorHandled = false;
-                if (request.getUnsuccessfulResponseHandler() != null) {
-                    // Even if we don't have the potential to retry, we might want to run the
-                    // handler to fix conditions (like expired tokens) that might cause us
-                    // trouble on our next request
-                    try {
-                        errorHandled = request.getUnsuccessfulResponseHandler().handleResponse(request, googleHttpResponse, true);
-                    } catch (IOException e1) {
-                        throw new RuntimeException("Unable to handle error in request", e1);
-                    }
-                }
-                if (!errorHandled) {
-                    if (request.handleRedirect(result.getStatusLine().getStatusCode(), httpHeaders)) {
-                        // The unsuccessful request's error could not be handled and it is a redirect request.
-                        errorHandled = true;
+            CountingInputStream wireInput = null;
+            CountingInputStream decodedInput = null;
+            T parsed = null;
+            Exception failure = null;
+            try {
+                com.google.api.client.http.HttpResponse googleHttpResponse = buildGoogleHttpResponse(request, lowLevelHttpResponseProxy);
+                if (!HttpStatusCodes.isSuccess(result.getStatusLine().getStatusCode())) {
+                    if (retryUnsuccessful(result, lowLevelHttpResponseProxy, googleHttpResponse)) {
+                        return;
                     }
-                }
-                // A retry is required if the error was successfully handled or if it is a redirect
-                if (errorHandled) {
-                    if (!isRetry) {
-                        try {
-                            result.getEntity().getContent().close();
-                            GoogleAsyncClient.executeAsync(originalRequest, callback, true);
-                            return;
-                        } catch (IOException e1) {
-                            throw new RuntimeException("Unable to retry request", e1);
-                        }
-                    } else {
-                        callback.failed(new HttpResponseException(googleHttpResponse));
+                    failure = new HttpResponseException(googleHttpResponse);
+                } else {
+                    wireInput = new CountingInputStream(result.getEntity().getContent());
+                    decodedInput = new CountingInputStream(contentFromEncodingInputStream(wireInput, result.getEntity().getContentEncoding()));
+                    try (InputStream input = decodedInput) {
+                        parsed = request.getParser().parseAndClose(input, ContentType.getOrDefault(result.getEntity()).getCharset(), responseClass);
+                    } catch (IOException | IllegalArgumentException e) {
+                        throw new IOException("Unable to process response", e);
                     }
                 }
+            } catch (IOException | RuntimeException e) {
+                failure = e;
             }
-
-            // throw an exception if unsuccessful response
-            if (!HttpStatusCodes.isSuccess(result.getStatusLine().getStatusCode())) {
-                callback.failed(new HttpResponseException(googleHttpResponse));
+            if (failure != null) {
+                callback.failed(failure);
+                return;
+            }
+            if (partialResponse != null && partialResponse.getPayloadListener() != null) {
+                partialResponse.getPayloadListener().onPayload(originalRequest, wireInput.getCount(), decodedInput.getCount());
             }
+            callback.completed(parsed);
+        }
 
-            try (InputStream input = contentFromEncodingInputStream(result.getEntity().getContent(), result.getEntity().getContentEncoding())) {
-                callback.completed(request.getParser().parseAndClose(input, ContentType.getOrDefault(result.getEntity()).getCharset(), responseClass));
+        /**
+         * @return whether the request has been sent again, the callback then receives the outcome of the retry
+         */
+        private boolean retryUnsuccessful(HttpResponse result, LowLevelHttpResponse lowLevelHttpResponse, com.google.api.client.http.HttpResponse googleHttpResponse) throws IOException {
+            StringBuilder logger = new StringBuilder();
+            HttpHeaders httpHeaders = new HttpHeaders();
+            try {
+                httpHeaders.fromHttpResponse(lowLevelHttpResponse, logger);
             } catch (IOException e) {
-                throw new RuntimeException("Unable to process response", e);
+                throw new IOException("Unable to read headers", e);
+            }
+
+            boolean errorHandled = false;
+            if (request.getUnsuccessfulResponseHandler() != null) {
+                // Even if we don't have the potential to retry, we might want to run the
+                // handler to fix conditions (like expired tokens) that might cause us
+                // trouble on our next request
+                try {
+                    errorHandled = request.getUnsuccessfulResponseHandler().handleResponse(request, googleHttpResponse, true);
+                } catch (IOException e1) {
+                    throw new IOException("Unable to handle error in request", e1);
+                }
+            }
+            if (!errorHandled) {
+                if (request.handleRedirect(result.getStatusLine().getStatusCode(), httpHeaders)) {
+                    // The unsuccessful request's error could not be handled and it is a redirect request.
+                    errorHandled = true;
+                }
+            }
+            // A retry is required if the error was successfully handled or if it is a redirect
+            if (!errorHandled || isRetry) {
+                return false;
+            }
+            try {
+                if (result.getEntity() != null) {
+                    result.getEntity().getContent().close();
+                }
+                GoogleAsyncClient.executeAsync(originalRequest, callback, partialResponse, true);
+            } catch (IOException e1) {
+                throw new IOException("Unable to retry request", e1);
             }
+            return true;
         }
 
         private InputStream contentFromEncodingInputStream(InputStream content, Header contentEncoding) throws IOException {
@@ -254,7 +290,7 @@ public class GoogleAsyncClient {
         }
     }
 
-    private static <T> void executeAsync(AbstractGoogleClientRequest<T> request, FutureCallback<T> callback, boolean isRetry) throws IOException {
+    private static <T> void executeAsync(AbstractGoogleClientRequest<T> request, FutureCallback<T> callback, PartialResponse partialResponse, boolean isRetry) throws IOException {
         com.google.api.client.http.HttpResponse httpResponse = request.executeUnparsed();
         NIOHttpTransport.WaitingForCallbackToExecuteHttpResponse waitingForCallbackToExecuteHttpResponse;
         try {
@@ -269,6 +305,58 @@ public class GoogleAsyncClient {
         } catch (IllegalAccessException e) {
             throw new IOException("Unable to access the private response value", e);
         }
-        waitingForCallbackToExecuteHttpResponse.withCallback(new ResponseCallback(callback, httpResponse.getRequest(), request.getResponseClass(), request, isRetry));
+        waitingForCallbackToExecuteHttpResponse.withCallback(new ResponseCallback(callback, httpResponse.getRequest(), request.getResponseClass(), request, partialResponse, isRetry));
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        private long count;
+        private boolean closed;
+
+        public CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = super.read();
+            if (read != -1) {
+                count++;
+            }
+            return read;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read != -1) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        @Override
+        public void close() throws IOException {
+            // Closed both by the parser and by the caller
+            if (closed) {
+                return;
+            }
+            closed = true;
+            // Parsers may stop before the end of the body, read it entirely so that the count is the actual payload
+            byte[] buffer = new byte[4096];
+            while (read(buffer, 0, buffer.length) != -1) {
+            }
+            super.close();
+        }
     }
 }
@@ -0,0 +1,148 @@
+package com.github.dhatanian.googlenio;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.util.EntityUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Records the requests executed by a {@link NIOHttpTransport} and their responses to a gzip compressed file,
+ * to be served back later by a {@link ReplayServer}.
+ * <p/>
+ * The <code>Authorization</code> header is never recorded. Request bodies are not recorded either.
+ * <p/>
+ * Recording is best-effort: an exchange that cannot be written is logged and dropped, the request itself still
+ * completes. Exchanges completing after {@link #close() close()} are dropped as well.
+ * <p/>
+ * Each exchange is flushed to the file once written, so that the exchanges recorded by a process that dies without
+ * closing the recorder can still be read.
+ * <p/>
+ * Usage :
+ * <pre>
+ * {@code
+ * HttpExchangeRecorder recorder = new HttpExchangeRecorder(new File("users.rec"));
+ * nioTransport.setRecorder(recorder);
+ * ... // Execute requests
+ * nioTransport.setRecorder(null);
+ * recorder.close();
+ * }
+ * </pre>
+ */
+public class HttpExchangeRecorder implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(HttpExchangeRecorder.class.getName());
+    private static final String AUTHORIZATION_HEADER = "Authorization";
+
+    private final DataOutputStream output;
+    private boolean closed;
+
+    public HttpExchangeRecorder(File file) throws IOException {
+        // Sync flush: flushing writes out the compressed data of all the exchanges written so far
+        output = new DataOutputStream(new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(file)), true));
+    }
+
+    FutureCallback<HttpResponse> recording(HttpUriRequest request, FutureCallback<HttpResponse> callback) {
+        return new RecordingCallback(request, callback);
+    }
+
+    void record(RecordedExchange exchange) {
+        try {
+            // Serialized first, so that a failing exchange does not leave a partial record in the file
+            ByteArrayOutputStream record = new ByteArrayOutputStream();
+            exchange.writeTo(new DataOutputStream(record));
+            synchronized (output) {
+                if (closed) {
+                    return;
+                }
+                record.writeTo(output);
+                output.flush();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to record " + exchange.getMethod() + " " + exchange.getUri(), e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (output) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            output.close();
+        }
+    }
+
+    private static Header[] withoutAuthorization(Header[] headers) {
+        List<Header> kept = new ArrayList<>(headers.length);
+        for (Header header : headers) {
+            if (!AUTHORIZATION_HEADER.equalsIgnoreCase(header.getName())) {
+                kept.add(header);
+            }
+        }
+        return kept.toArray(new Header[kept.size()]);
+    }
+
+    private class RecordingCallback implements FutureCallback<HttpResponse> {
+        private final HttpUriRequest request;
+        private final FutureCallback<HttpResponse> callback;
+        private final long startNanos = System.nanoTime();
+
+        public RecordingCallback(HttpUriRequest request, FutureCallback<HttpResponse> callback) {
+            this.request = request;
+            this.callback = callback;
+        }
+
+        @Override
+        public void completed(HttpResponse result) {
+            long durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+            byte[] body = new byte[0];
+            if (result.getEntity() != null) {
+                try {
+                    // The entity can only be consumed once, replace it with a copy of its content
+                    body = EntityUtils.toByteArray(result.getEntity());
+                    BasicHttpEntity entity = new BasicHttpEntity();
+                    entity.setContent(new ByteArrayInputStream(body));
+                    entity.setContentLength(body.length);
+                    entity.setContentType(result.getEntity().getContentType());
+                    entity.setContentEncoding(result.getEntity().getContentEncoding());
+                    result.setEntity(entity);
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Unable to record " + request.getMethod() + " " + request.getURI(), e);
+                    callback.completed(result);
+                    return;
+                }
+            }
+            record(new RecordedExchange(request.getMethod(), request.getURI().toString(), withoutAuthorization(request.getAllHeaders()),
+                    result.getStatusLine().getStatusCode(), result.getStatusLine().getReasonPhrase(), result.getAllHeaders(),
+                    body, durationMillis));
+            callback.completed(result);
+        }
+
+        @Override
+        public void failed(Exception ex) {
+            callback.failed(ex);
+        }
+
+        @Override
+        public void cancelled() {
+            callback.cancelled();
+        }
+    }
+}
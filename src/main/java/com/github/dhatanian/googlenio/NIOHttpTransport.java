@@ -9,23 +9,50 @@ import com.google.api.client.util.StreamingContent;
 import org.apache.http.*;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.*;
+import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.client.utils.URIUtils;
 import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.ssl.SSLContexts;
 import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.conn.DefaultRoutePlanner;
+import org.apache.http.impl.conn.DefaultSchemePortResolver;
 import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
 import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.ManagedNHttpClientConnectionFactory;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
 import org.apache.http.nio.ContentEncoder;
 import org.apache.http.nio.ContentEncoderChannel;
 import org.apache.http.nio.IOControl;
+import org.apache.http.nio.NHttpClientConnection;
+import org.apache.http.nio.conn.NoopIOSessionStrategy;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
 import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
+import org.apache.http.nio.reactor.IOReactorException;
 import org.apache.http.protocol.HttpContext;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.net.URI;
 import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Apache NIO implementation of Google's HTTP Transport.
@@ -34,27 +61,56 @@ import java.nio.channels.Channels;
  * @see GoogleAsyncClient
  */
 public class NIOHttpTransport extends HttpTransport {
+    private static final long DNS_TTL_SECONDS = 60;
+
     private CloseableHttpAsyncClient httpClient;
+    private PoolingNHttpClientConnectionManager connectionManager;
+    private CachingDnsResolver dnsResolver;
+    private volatile HttpExchangeRecorder recorder;
 
     public NIOHttpTransport() {
+        this(DNS_TTL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @param dnsTtl how long resolved host addresses are kept, before being looked up again for new connections
+     */
+    public NIOHttpTransport(long dnsTtl, TimeUnit unit) {
+        Preconditions.checkArgument(dnsTtl >= 0, "dnsTtl must not be negative");
         RequestConfig requestConfig = RequestConfig.custom()
                 .setSocketTimeout(3000)
                 .setConnectTimeout(3000).build();
 
+        // Same schemes as the HttpAsyncClientBuilder defaults, only registered here to plug in the DNS resolver
+        Registry<SchemeIOSessionStrategy> ioSessionStrategies = RegistryBuilder.<SchemeIOSessionStrategy>create()
+                .register("http", NoopIOSessionStrategy.INSTANCE)
+                .register("https", new SSLIOSessionStrategy(SSLContexts.createDefault()))
+                .build();
+        dnsResolver = new CachingDnsResolver(dnsTtl, unit);
+        try {
+            connectionManager = new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor(IOReactorConfig.DEFAULT),
+                    ManagedNHttpClientConnectionFactory.INSTANCE, ioSessionStrategies, dnsResolver);
+        } catch (IOReactorException e) {
+            throw new RuntimeException("Unable to create the I/O reactor", e);
+        }
+
         httpClient = HttpAsyncClients.custom()
+                .setConnectionManager(connectionManager)
                 .setDefaultRequestConfig(requestConfig)
                 .build();
     }
 
+    /**
+     * The given client is used as is: its DNS resolution, TLS settings and pool size are not changed by
+     * {@link #warmUp(Collection, int, long, TimeUnit) warmUp()}.
+     */
     public NIOHttpTransport(CloseableHttpAsyncClient httpClient) {
         this.httpClient = httpClient;
     }
 
     @Override
     protected LowLevelHttpRequest buildRequest(String method, String url) throws IOException {
-        if (!httpClient.isRunning()) {
-            httpClient.start();
-        }
+        start();
         HttpRequestBase requestBase;
         switch (method) {
             case HttpMethods.DELETE:
@@ -85,6 +141,104 @@ public class NIOHttpTransport extends HttpTransport {
         return new ApacheNIOLowLevelHttpRequest(httpClient, requestBase);
     }
 
+    /**
+     * Starts the I/O reactor. Otherwise it is started when the first request is built.
+     */
+    public void start() {
+        // Called for every request, only lock until the client is running
+        if (httpClient.isRunning()) {
+            return;
+        }
+        synchronized (this) {
+            if (!httpClient.isRunning()) {
+                httpClient.start();
+            }
+        }
+    }
+
+    /**
+     * Starts the transport and opens keep-alive connections to each host, so that the first requests do not pay the
+     * DNS lookup, TCP and TLS handshakes. A HEAD request is sent to the root of each host on every connection.
+     *
+     * @param hosts              the hosts to connect to, with their scheme, e.g. <code>https://www.googleapis.com</code>
+     * @param connectionsPerHost the number of connections to open to each host, the pool is enlarged if needed
+     * @param timeout            the maximum time to wait for all connections
+     * @throws IOException if any of the connections could not be opened in time, the others are still kept
+     */
+    public void warmUp(Collection<String> hosts, int connectionsPerHost, long timeout, TimeUnit unit) throws IOException {
+        Preconditions.checkArgument(connectionsPerHost > 0, "connectionsPerHost must be positive");
+        List<URI> roots = new ArrayList<>(hosts.size());
+        for (String host : hosts) {
+            URI uri = URI.create(host);
+            Preconditions.checkArgument(uri.getScheme() != null && uri.getHost() != null, "%s is not a host with its scheme", host);
+            roots.add(uri.resolve("/"));
+        }
+        start();
+        if (connectionManager != null) {
+            if (connectionManager.getDefaultMaxPerRoute() < connectionsPerHost) {
+                connectionManager.setDefaultMaxPerRoute(connectionsPerHost);
+            }
+            if (connectionManager.getMaxTotal() < hosts.size() * connectionsPerHost) {
+                connectionManager.setMaxTotal(hosts.size() * connectionsPerHost);
+            }
+        }
+
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        CountDownLatch latch = new CountDownLatch(hosts.size() * connectionsPerHost);
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        List<WarmUpRequest> requests = new ArrayList<>();
+        for (URI uri : roots) {
+            if (dnsResolver != null) {
+                dnsResolver.resolve(uri.getHost());
+            }
+            for (int i = 0; i < connectionsPerHost; i++) {
+                WarmUpRequest request = new WarmUpRequest(uri, latch, failure);
+                requests.add(request);
+                request.execute();
+            }
+        }
+
+        try {
+            boolean allCompleted = latch.await(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            // Even on failure, so that the connections already open can be used
+            IOException shareFailure = null;
+            for (WarmUpRequest request : requests) {
+                try {
+                    request.share(deadline);
+                } catch (IOException e) {
+                    if (shareFailure == null) {
+                        shareFailure = e;
+                    }
+                }
+            }
+            if (!allCompleted) {
+                throw new IOException("Timed out warming up connections, " + latch.getCount() + " still pending");
+            }
+            if (failure.get() != null) {
+                throw new IOException("Unable to warm up all connections", failure.get());
+            }
+            if (shareFailure != null) {
+                throw shareFailure;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while warming up connections");
+        }
+    }
+
+    PoolingNHttpClientConnectionManager getConnectionManager() {
+        return connectionManager;
+    }
+
+    /**
+     * Records the requests executed from now on, and their responses. Pass <code>null</code> to stop recording.
+     *
+     * @see ReplayServer
+     */
+    public void setRecorder(HttpExchangeRecorder recorder) {
+        this.recorder = recorder;
+    }
+
     /*
      * This method must be called before stopping the application, in order to shutdown the associated executor thread.
      */
@@ -92,6 +246,78 @@ public class NIOHttpTransport extends HttpTransport {
         httpClient.close();
     }
 
+    /**
+     * A response received early releases its connection to the pool, where another warm-up request could reuse it
+     * instead of opening its own. Each warm-up request is then given its own user token, the pool only handing out
+     * connections released with the same token, until all connections are open and shared with the other requests.
+     */
+    private class WarmUpRequest implements FutureCallback<HttpResponse> {
+        private final HttpHead head;
+        private final HttpClientContext context = HttpClientContext.create();
+        private final CountDownLatch latch;
+        private final AtomicReference<Exception> failure;
+        private volatile boolean completed;
+        private volatile long keepAliveMillis;
+
+        public WarmUpRequest(URI uri, CountDownLatch latch, AtomicReference<Exception> failure) {
+            this.head = new HttpHead(uri);
+            this.latch = latch;
+            this.failure = failure;
+            if (connectionManager != null) {
+                context.setUserToken(new Object());
+            }
+        }
+
+        public void execute() {
+            httpClient.execute(head, context, this);
+        }
+
+        /**
+         * Releases the connection again without the user token, so that any request can use it.
+         */
+        public void share(long deadline) throws IOException, InterruptedException {
+            if (connectionManager == null || !completed) {
+                return;
+            }
+            HttpRoute route;
+            try {
+                // The route planner of the clients built by HttpAsyncClients
+                route = new DefaultRoutePlanner(DefaultSchemePortResolver.INSTANCE).determineRoute(URIUtils.extractHost(head.getURI()), head, context);
+            } catch (HttpException e) {
+                throw new IOException("Unable to determine the route to " + head.getURI(), e);
+            }
+            Future<NHttpClientConnection> lease = connectionManager.requestConnection(route, context.getUserToken(), 0, 0, TimeUnit.MILLISECONDS, null);
+            NHttpClientConnection connection;
+            try {
+                connection = lease.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            } catch (ExecutionException e) {
+                throw new IOException("Unable to share warmed up connection", e.getCause());
+            } catch (TimeoutException e) {
+                lease.cancel(true);
+                throw new IOException("Timed out sharing warmed up connection", e);
+            }
+            connectionManager.releaseConnection(connection, null, keepAliveMillis, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void completed(HttpResponse result) {
+            keepAliveMillis = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(result, context);
+            completed = true;
+            latch.countDown();
+        }
+
+        @Override
+        public void failed(Exception ex) {
+            failure.compareAndSet(null, ex);
+            latch.countDown();
+        }
+
+        @Override
+        public void cancelled() {
+            latch.countDown();
+        }
+    }
+
     /**
      * HTTP extension method.
      *
@@ -220,6 +446,10 @@ public class NIOHttpTransport extends HttpTransport {
         }
 
         public void withCallback(FutureCallback<HttpResponse> callback) {
+            HttpExchangeRecorder currentRecorder = recorder;
+            if (currentRecorder != null) {
+                callback = currentRecorder.recording(actualRequest, callback);
+            }
             httpclient.execute(actualRequest, callback);
         }
 
@@ -0,0 +1,155 @@
+package com.github.dhatanian.googlenio;
+
+import com.google.api.client.googleapis.services.AbstractGoogleClientRequest;
+import com.google.api.client.util.Preconditions;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Partial response option for {@link GoogleAsyncClient}.
+ * <p/>
+ * Sets the <code>fields</code> query parameter on the request so that the server only sends back the listed fields.
+ * The fields can be given explicitly, or inferred from a projection interface whose getters name the fields to keep.
+ * As for any request, the response is gzip encoded, google-http-client asking for it by default.
+ * <p/>
+ * Usage :
+ * <pre>
+ * {@code
+ * interface UserProjection {
+ *     String getId();
+ *     String getPrimaryEmail();
+ * }
+ * interface UsersProjection {
+ *     String getNextPageToken();
+ *     List<UserProjection> getUsers();
+ * }
+ *
+ * // fields=nextPageToken,users(id,primaryEmail)
+ * GoogleAsyncClient.executeAsync(directory.users().list().setCustomer("my_customer"), callback,
+ *         PartialResponse.projection(UsersProjection.class));
+ * }
+ * </pre>
+ */
+public class PartialResponse {
+    static final String FIELDS_PARAMETER = "fields";
+
+    private final String fields;
+    private PayloadListener payloadListener;
+
+    private PartialResponse(String fields) {
+        this.fields = fields;
+    }
+
+    /**
+     * @param fields the fields to keep, using the partial response syntax (e.g. <code>users(id,primaryEmail)</code>)
+     */
+    public static PartialResponse fields(String... fields) {
+        Preconditions.checkArgument(fields.length > 0, "At least one field is required");
+        return new PartialResponse(join(Arrays.asList(fields)));
+    }
+
+    /**
+     * @param projection an interface whose getters name the fields to keep. Getters returning another interface,
+     *                   or a collection of interfaces, select the nested fields of that interface.
+     */
+    public static PartialResponse projection(Class<?> projection) {
+        return new PartialResponse(fieldsOf(projection, new HashSet<Class<?>>()));
+    }
+
+    /**
+     * Reports the size of each response, as received on the wire and once decoded.
+     */
+    public PartialResponse withPayloadListener(PayloadListener payloadListener) {
+        this.payloadListener = payloadListener;
+        return this;
+    }
+
+    public String getFields() {
+        return fields;
+    }
+
+    public PayloadListener getPayloadListener() {
+        return payloadListener;
+    }
+
+    void applyTo(AbstractGoogleClientRequest<?> request) {
+        request.set(FIELDS_PARAMETER, fields);
+    }
+
+    private static String fieldsOf(Class<?> projection, Set<Class<?>> visiting) {
+        Preconditions.checkArgument(projection.isInterface(), "%s is not an interface", projection.getName());
+        Preconditions.checkArgument(visiting.add(projection), "%s is recursive", projection.getName());
+        List<String> fields = new ArrayList<>();
+        for (Method method : projection.getMethods()) {
+            String field = fieldName(method);
+            if (field == null) {
+                continue;
+            }
+            Class<?> nested = nestedProjection(method.getGenericReturnType());
+            fields.add(nested == null ? field : field + "(" + fieldsOf(nested, visiting) + ")");
+        }
+        visiting.remove(projection);
+        Preconditions.checkArgument(!fields.isEmpty(), "%s does not declare any getter", projection.getName());
+        // getMethods() does not guarantee any order, keep the parameter stable
+        Collections.sort(fields);
+        return join(fields);
+    }
+
+    private static String join(List<String> fields) {
+        StringBuilder joined = new StringBuilder();
+        for (String field : fields) {
+            if (joined.length() > 0) {
+                joined.append(',');
+            }
+            joined.append(Preconditions.checkNotNull(field));
+        }
+        return joined.toString();
+    }
+
+    private static String fieldName(Method method) {
+        if (method.getParameterTypes().length > 0 || method.getReturnType() == void.class) {
+            return null;
+        }
+        String name = method.getName();
+        // JavaBeans names, as in Google models: key isAdmin is read by getIsAdmin(), isSuspended() reads key suspended
+        if (name.startsWith("get") && name.length() > 3) {
+            return Character.toLowerCase(name.charAt(3)) + name.substring(4);
+        }
+        if (name.startsWith("is") && name.length() > 2) {
+            return Character.toLowerCase(name.charAt(2)) + name.substring(3);
+        }
+        return null;
+    }
+
+    private static Class<?> nestedProjection(Type type) {
+        if (type instanceof ParameterizedType) {
+            ParameterizedType parameterizedType = (ParameterizedType) type;
+            if (parameterizedType.getRawType() instanceof Class
+                    && Collection.class.isAssignableFrom((Class<?>) parameterizedType.getRawType())) {
+                return nestedProjection(parameterizedType.getActualTypeArguments()[0]);
+            }
+            return null;
+        }
+        if (type instanceof Class && ((Class<?>) type).isInterface() && !((Class<?>) type).getName().startsWith("java.")) {
+            return (Class<?>) type;
+        }
+        return null;
+    }
+
+    /**
+     * Receives the size of each response body. The difference between both values is the saving brought by the
+     * response compression, the <code>fields</code> parameter reducing both of them.
+     */
+    public interface PayloadListener {
+        void onPayload(AbstractGoogleClientRequest<?> request, long wireBytes, long decodedBytes);
+    }
+}
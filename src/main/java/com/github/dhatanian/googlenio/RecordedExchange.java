@@ -0,0 +1,145 @@
+package com.github.dhatanian.googlenio;
+
+import org.apache.http.Header;
+import org.apache.http.message.BasicHeader;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A request/response pair captured by {@link HttpExchangeRecorder} and served back by {@link ReplayServer}.
+ * <p/>
+ * The response body is kept as received on the wire, so a gzip encoded response is replayed gzip encoded.
+ */
+public class RecordedExchange {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final String method;
+    private final String uri;
+    private final Header[] requestHeaders;
+    private final int statusCode;
+    private final String reasonPhrase;
+    private final Header[] responseHeaders;
+    private final byte[] body;
+    private final long durationMillis;
+
+    public RecordedExchange(String method, String uri, Header[] requestHeaders, int statusCode, String reasonPhrase,
+                            Header[] responseHeaders, byte[] body, long durationMillis) {
+        this.method = method;
+        this.uri = uri;
+        this.requestHeaders = requestHeaders;
+        this.statusCode = statusCode;
+        this.reasonPhrase = reasonPhrase;
+        this.responseHeaders = responseHeaders;
+        this.body = body;
+        this.durationMillis = durationMillis;
+    }
+
+    /**
+     * Reads all the exchanges written to a file by {@link HttpExchangeRecorder}. The file may have been left by an
+     * interrupted recording: an exchange that was not written entirely is then ignored.
+     */
+    public static List<RecordedExchange> readAll(File file) throws IOException {
+        List<RecordedExchange> exchanges = new ArrayList<>();
+        try (DataInputStream input = new DataInputStream(new GZIPInputStream(new BufferedInputStream(new FileInputStream(file))))) {
+            while (input.readBoolean()) {
+                String method = readString(input);
+                String uri = readString(input);
+                Header[] requestHeaders = readHeaders(input);
+                int statusCode = input.readInt();
+                String reasonPhrase = readString(input);
+                Header[] responseHeaders = readHeaders(input);
+                long durationMillis = input.readLong();
+                byte[] body = new byte[input.readInt()];
+                input.readFully(body);
+                exchanges.add(new RecordedExchange(method, uri, requestHeaders, statusCode, reasonPhrase, responseHeaders, body, durationMillis));
+            }
+        } catch (EOFException e) {
+            // End of the file, or of the data flushed before the recording was interrupted
+        }
+        return exchanges;
+    }
+
+    void writeTo(DataOutput output) throws IOException {
+        output.writeBoolean(true);
+        writeString(output, method);
+        writeString(output, uri);
+        writeHeaders(output, requestHeaders);
+        output.writeInt(statusCode);
+        writeString(output, reasonPhrase == null ? "" : reasonPhrase);
+        writeHeaders(output, responseHeaders);
+        output.writeLong(durationMillis);
+        output.writeInt(body.length);
+        output.write(body);
+    }
+
+    private static Header[] readHeaders(DataInputStream input) throws IOException {
+        Header[] headers = new Header[input.readInt()];
+        for (int i = 0; i < headers.length; i++) {
+            headers[i] = new BasicHeader(readString(input), readString(input));
+        }
+        return headers;
+    }
+
+    private static void writeHeaders(DataOutput output, Header[] headers) throws IOException {
+        output.writeInt(headers.length);
+        for (Header header : headers) {
+            writeString(output, header.getName());
+            writeString(output, header.getValue() == null ? "" : header.getValue());
+        }
+    }
+
+    // Unlike readUTF/writeUTF, not limited to 64 KB
+    private static String readString(DataInputStream input) throws IOException {
+        byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static void writeString(DataOutput output, String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getUri() {
+        return uri;
+    }
+
+    public Header[] getRequestHeaders() {
+        return requestHeaders;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public String getReasonPhrase() {
+        return reasonPhrase;
+    }
+
+    public Header[] getResponseHeaders() {
+        return responseHeaders;
+    }
+
+    public byte[] getBody() {
+        return body;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+}
@@ -0,0 +1,328 @@
+package com.github.dhatanian.googlenio;
+
+import org.apache.http.Header;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.config.ConnectionConfig;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.nio.DefaultHttpServerIODispatch;
+import org.apache.http.impl.nio.DefaultNHttpServerConnection;
+import org.apache.http.impl.nio.DefaultNHttpServerConnectionFactory;
+import org.apache.http.impl.nio.reactor.DefaultListeningIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.NHttpConnection;
+import org.apache.http.nio.NHttpConnectionFactory;
+import org.apache.http.nio.protocol.BasicAsyncRequestConsumer;
+import org.apache.http.nio.protocol.HttpAsyncExchange;
+import org.apache.http.nio.protocol.HttpAsyncRequestConsumer;
+import org.apache.http.nio.protocol.HttpAsyncRequestHandler;
+import org.apache.http.nio.protocol.HttpAsyncService;
+import org.apache.http.nio.protocol.UriHttpAsyncRequestHandlerMapper;
+import org.apache.http.nio.reactor.IOEventDispatch;
+import org.apache.http.nio.reactor.ListeningIOReactor;
+import org.apache.http.nio.reactor.ListenerEndpoint;
+import org.apache.http.nio.reactor.SocketAccessor;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpCoreContext;
+import org.apache.http.protocol.HttpProcessor;
+import org.apache.http.protocol.HttpProcessorBuilder;
+import org.apache.http.protocol.ResponseConnControl;
+import org.apache.http.protocol.ResponseContent;
+import org.apache.http.protocol.ResponseDate;
+import org.apache.http.protocol.ResponseServer;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local HTTP server serving back the exchanges captured by {@link HttpExchangeRecorder}, to load test a client offline.
+ * <p/>
+ * Requests are matched on their method, path and query string. When several exchanges match, they are served in turn.
+ * Each response can be delayed following a {@link LatencyDistribution}, and replaced by an injected {@link Fault}.
+ * Call {@link #stop() stop()} before closing your application, as this server starts threads.
+ * <p/>
+ * Usage :
+ * <pre>
+ * {@code
+ * ReplayServer server = new ReplayServer(RecordedExchange.readAll(new File("users.rec")))
+ *         .withLatency(ReplayServer.LatencyDistribution.uniform(50, 200))
+ *         .withFault(ReplayServer.Fault.TOO_MANY_REQUESTS, 0.01);
+ * server.start();
+ * Directory directory = new Directory.Builder(nioTransport, new JacksonFactory(), credential)
+ *         .setRootUrl("http://localhost:" + server.getPort() + "/").build();
+ * ...
+ * server.stop();
+ * }
+ * </pre>
+ */
+public class ReplayServer {
+    private static final List<String> HOP_BY_HOP_HEADERS = Arrays.asList("content-length", "transfer-encoding", "connection", "keep-alive");
+
+    private final Map<String, List<RecordedExchange>> exchanges = new HashMap<>();
+    private final Map<String, AtomicInteger> nextExchange = new HashMap<>();
+    private final Map<Fault, Double> faults = new HashMap<>();
+    private LatencyDistribution latency = LatencyDistribution.none();
+    private int port;
+    private int ioThreadCount = Runtime.getRuntime().availableProcessors();
+    private ListeningIOReactor ioReactor;
+    private ScheduledExecutorService scheduler;
+
+    public ReplayServer(List<RecordedExchange> recordedExchanges) {
+        for (RecordedExchange exchange : recordedExchanges) {
+            String key = key(exchange.getMethod(), URI.create(exchange.getUri()));
+            if (!exchanges.containsKey(key)) {
+                exchanges.put(key, new ArrayList<RecordedExchange>());
+                nextExchange.put(key, new AtomicInteger());
+            }
+            exchanges.get(key).add(exchange);
+        }
+    }
+
+    /**
+     * @param port the port to listen on, 0 (the default) picks a free port
+     */
+    public ReplayServer onPort(int port) {
+        this.port = port;
+        return this;
+    }
+
+    public ReplayServer withIoThreadCount(int ioThreadCount) {
+        this.ioThreadCount = ioThreadCount;
+        return this;
+    }
+
+    public ReplayServer withLatency(LatencyDistribution latency) {
+        this.latency = latency;
+        return this;
+    }
+
+    /**
+     * @param probability the probability, between 0 and 1, for each request to fail with this fault
+     */
+    public ReplayServer withFault(Fault fault, double probability) {
+        faults.put(fault, probability);
+        return this;
+    }
+
+    public void start() throws IOException {
+        HttpProcessor httpProcessor = HttpProcessorBuilder.create()
+                .add(new ResponseDate())
+                .add(new ResponseServer("ReplayServer"))
+                .add(new ResponseContent())
+                .add(new ResponseConnControl())
+                .build();
+        UriHttpAsyncRequestHandlerMapper handlerMapper = new UriHttpAsyncRequestHandlerMapper();
+        handlerMapper.register("*", new ReplayHandler());
+        NHttpConnectionFactory<DefaultNHttpServerConnection> connectionFactory = new DefaultNHttpServerConnectionFactory(ConnectionConfig.DEFAULT);
+        final IOEventDispatch ioEventDispatch = new DefaultHttpServerIODispatch(new HttpAsyncService(httpProcessor, handlerMapper), connectionFactory);
+
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        ioReactor = new DefaultListeningIOReactor(IOReactorConfig.custom()
+                .setIoThreadCount(ioThreadCount)
+                .setSoReuseAddress(true)
+                .build());
+        ListenerEndpoint endpoint = ioReactor.listen(new InetSocketAddress(port));
+        Thread reactorThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ioReactor.execute(ioEventDispatch);
+                } catch (InterruptedIOException e) {
+                    // Stopped
+                } catch (IOException e) {
+                    throw new RuntimeException("Replay server failed", e);
+                }
+            }
+        }, "replay-server");
+        reactorThread.start();
+        try {
+            endpoint.waitFor();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while starting the replay server");
+        }
+        if (endpoint.getException() != null) {
+            throw new IOException("Unable to listen on port " + port, endpoint.getException());
+        }
+        port = ((InetSocketAddress) endpoint.getAddress()).getPort();
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * This method must be called before stopping the application, in order to shutdown the associated threads.
+     */
+    public void stop() throws IOException {
+        scheduler.shutdownNow();
+        ioReactor.shutdown(1000);
+    }
+
+    private static String key(String method, URI uri) {
+        return method + " " + uri.getRawPath() + (uri.getRawQuery() == null ? "" : "?" + uri.getRawQuery());
+    }
+
+    private RecordedExchange nextExchange(String key) {
+        List<RecordedExchange> candidates = exchanges.get(key);
+        if (candidates == null) {
+            return null;
+        }
+        return candidates.get((nextExchange.get(key).getAndIncrement() & Integer.MAX_VALUE) % candidates.size());
+    }
+
+    private Fault nextFault(Random random) {
+        double draw = random.nextDouble();
+        for (Map.Entry<Fault, Double> fault : faults.entrySet()) {
+            draw -= fault.getValue();
+            if (draw < 0) {
+                return fault.getKey();
+            }
+        }
+        return null;
+    }
+
+    private class ReplayHandler implements HttpAsyncRequestHandler<HttpRequest> {
+        @Override
+        public HttpAsyncRequestConsumer<HttpRequest> processRequest(HttpRequest request, HttpContext context) {
+            return new BasicAsyncRequestConsumer();
+        }
+
+        @Override
+        public void handle(HttpRequest request, final HttpAsyncExchange httpExchange, HttpContext context) throws HttpException, IOException {
+            Random random = ThreadLocalRandom.current();
+            RecordedExchange exchange = nextExchange(key(request.getRequestLine().getMethod(), URI.create(request.getRequestLine().getUri())));
+            final Fault fault = nextFault(random);
+            final NHttpConnection connection = (NHttpConnection) context.getAttribute(HttpCoreContext.HTTP_CONNECTION);
+            HttpResponse response = httpExchange.getResponse();
+            if (fault == Fault.CONNECTION_RESET) {
+                // Nothing to prepare, the connection is dropped once the latency elapsed
+            } else if (fault != null) {
+                response.setStatusCode(fault.getStatusCode());
+            } else if (exchange == null) {
+                response.setStatusCode(HttpStatus.SC_NOT_FOUND);
+            } else {
+                response.setStatusCode(exchange.getStatusCode());
+                response.setReasonPhrase(exchange.getReasonPhrase());
+                for (Header header : exchange.getResponseHeaders()) {
+                    if (!HOP_BY_HOP_HEADERS.contains(header.getName().toLowerCase())) {
+                        response.addHeader(header);
+                    }
+                }
+                response.setEntity(new ByteArrayEntity(exchange.getBody()));
+            }
+
+            Runnable respond = new Runnable() {
+                @Override
+                public void run() {
+                    if (fault == Fault.CONNECTION_RESET) {
+                        try {
+                            // A zero linger time makes the close send a RST instead of a FIN
+                            if (connection instanceof SocketAccessor) {
+                                ((SocketAccessor) connection).getSocket().setSoLinger(true, 0);
+                            }
+                            connection.shutdown();
+                        } catch (IOException e) {
+                            // The connection is dropped anyway
+                        }
+                    } else {
+                        httpExchange.submitResponse();
+                    }
+                }
+            };
+            long delayMillis = latency.nextDelayMillis(exchange, random);
+            if (delayMillis <= 0) {
+                respond.run();
+            } else {
+                scheduler.schedule(respond, delayMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Faults that can be injected in place of the recorded responses.
+     */
+    public enum Fault {
+        TOO_MANY_REQUESTS(429),
+        SERVICE_UNAVAILABLE(HttpStatus.SC_SERVICE_UNAVAILABLE),
+        CONNECTION_RESET(-1);
+
+        private final int statusCode;
+
+        Fault(int statusCode) {
+            this.statusCode = statusCode;
+        }
+
+        public int getStatusCode() {
+            return statusCode;
+        }
+    }
+
+    /**
+     * Delay applied before sending each response.
+     */
+    public abstract static class LatencyDistribution {
+        /**
+         * @param exchange the exchange being replayed, <code>null</code> if no recorded exchange matches the request
+         */
+        public abstract long nextDelayMillis(RecordedExchange exchange, Random random);
+
+        public static LatencyDistribution none() {
+            return fixed(0);
+        }
+
+        public static LatencyDistribution fixed(final long delayMillis) {
+            return new LatencyDistribution() {
+                @Override
+                public long nextDelayMillis(RecordedExchange exchange, Random random) {
+                    return delayMillis;
+                }
+            };
+        }
+
+        public static LatencyDistribution uniform(final long minMillis, final long maxMillis) {
+            return new LatencyDistribution() {
+                @Override
+                public long nextDelayMillis(RecordedExchange exchange, Random random) {
+                    return minMillis + (long) (random.nextDouble() * (maxMillis - minMillis));
+                }
+            };
+        }
+
+        public static LatencyDistribution exponential(final long meanMillis) {
+            return new LatencyDistribution() {
+                @Override
+                public long nextDelayMillis(RecordedExchange exchange, Random random) {
+                    return (long) (-meanMillis * Math.log(1 - random.nextDouble()));
+                }
+            };
+        }
+
+        /**
+         * Replays the duration measured when the exchange was recorded.
+         */
+        public static LatencyDistribution recorded() {
+            return new LatencyDistribution() {
+                @Override
+                public long nextDelayMillis(RecordedExchange exchange, Random random) {
+                    return exchange == null ? 0 : exchange.getDurationMillis();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.github.dhatanian.googlenio;
+
+import com.google.api.client.googleapis.services.AbstractGoogleClientRequest;
+
+/**
+ * Outcome of a request executed by an {@link AsyncRequestPublisher}: either its parsed response or its failure.
+ */
+public class RequestResult<T> {
+    private final AbstractGoogleClientRequest<T> request;
+    private final T result;
+    private final Exception exception;
+
+    private RequestResult(AbstractGoogleClientRequest<T> request, T result, Exception exception) {
+        this.request = request;
+        this.result = result;
+        this.exception = exception;
+    }
+
+    static <T> RequestResult<T> success(AbstractGoogleClientRequest<T> request, T result) {
+        return new RequestResult<>(request, result, null);
+    }
+
+    static <T> RequestResult<T> failure(AbstractGoogleClientRequest<T> request, Exception exception) {
+        return new RequestResult<>(request, null, exception);
+    }
+
+    public AbstractGoogleClientRequest<T> getRequest() {
+        return request;
+    }
+
+    public boolean isSuccess() {
+        return exception == null;
+    }
+
+    /**
+     * @return the parsed response, <code>null</code> if the request failed
+     */
+    public T getResult() {
+        return result;
+    }
+
+    /**
+     * @return the failure, <code>null</code> if the request succeeded
+     */
+    public Exception getException() {
+        return exception;
+    }
+}
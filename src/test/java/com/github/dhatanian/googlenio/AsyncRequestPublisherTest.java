@@ -0,0 +1,347 @@
+package com.github.dhatanian.googlenio;
+
+import com.google.api.client.googleapis.services.AbstractGoogleClientRequest;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.services.admin.directory.Directory;
+import com.google.api.services.admin.directory.model.Users;
+import org.bigtesting.fixd.Method;
+import org.bigtesting.fixd.ServerFixture;
+import org.bigtesting.fixd.request.HttpRequest;
+import org.bigtesting.fixd.request.HttpRequestHandler;
+import org.bigtesting.fixd.response.HttpResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class AsyncRequestPublisherTest {
+    private static final int PORT = 6668;
+    private static final int REQUEST_COUNT = 20;
+    private static final int MAX_CONCURRENCY = 3;
+    private static final String USERS_JSON = "{\n" +
+            "  \"kind\" : \"admin#directory#users\",\n" +
+            "  \"users\" : [ {\n" +
+            "    \"id\" : \"100671467136357495231\",\n" +
+            "    \"primaryEmail\" : \"anouche.sariand@revevolcloud.com\"\n" +
+            "  }]}";
+    private ServerFixture server;
+    private NIOHttpTransport nioHttpTransport = new NIOHttpTransport();
+    private Directory directory = new Directory.Builder(nioHttpTransport, new JacksonFactory(), new FakeGoogleCredential()).setRootUrl("http://localhost:" + PORT).setServicePath("/").setApplicationName("test").build();
+
+    @Before
+    public void beforeEachTest() throws Exception {
+        server = new ServerFixture(PORT);
+        server.start();
+    }
+
+    @After
+    public void stopServer() throws IOException {
+        server.stop();
+        nioHttpTransport.shutdown();
+    }
+
+    @Test
+    public void shouldPublishResultsInRequestOrderWithBoundedDemand() throws Exception {
+        server.handle(Method.GET, "/users").with(200, "application/json", USERS_JSON);
+        List<Directory.Users.List> requests = listRequests(REQUEST_COUNT);
+        IterablePublisher<Directory.Users.List> upstream = new IterablePublisher<>(requests, null);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+
+        new AsyncRequestPublisher<Users>(upstream, MAX_CONCURRENCY, true).subscribe(subscriber);
+        subscriber.awaitTermination();
+
+        assertTrue(subscriber.completed);
+        assertEquals(REQUEST_COUNT, subscriber.results.size());
+        for (int i = 0; i < REQUEST_COUNT; i++) {
+            assertTrue(subscriber.results.get(i).isSuccess());
+            assertSame(requests.get(i), subscriber.results.get(i).getRequest());
+        }
+        assertTrue(upstream.maxOutstanding <= MAX_CONCURRENCY);
+    }
+
+    @Test
+    public void shouldPublishAllResultsUnordered() throws Exception {
+        server.handle(Method.GET, "/users").with(200, "application/json", USERS_JSON);
+        List<Directory.Users.List> requests = listRequests(REQUEST_COUNT);
+        IterablePublisher<Directory.Users.List> upstream = new IterablePublisher<>(requests, null);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+
+        new AsyncRequestPublisher<Users>(upstream, MAX_CONCURRENCY, false).subscribe(subscriber);
+        subscriber.awaitTermination();
+
+        assertTrue(subscriber.completed);
+        HashSet<AbstractGoogleClientRequest<Users>> published = new HashSet<>();
+        for (RequestResult<Users> result : subscriber.results) {
+            assertTrue(result.isSuccess());
+            published.add(result.getRequest());
+        }
+        assertEquals(new HashSet<AbstractGoogleClientRequest<Users>>(requests), published);
+        assertTrue(upstream.maxOutstanding <= MAX_CONCURRENCY);
+    }
+
+    @Test
+    public void shouldPublishMalformedResponseAsFailureAndComplete() throws Exception {
+        final AtomicInteger served = new AtomicInteger();
+        server.handle(Method.GET, "/users")
+                .with(new HttpRequestHandler() {
+                    @Override
+                    public void handle(HttpRequest httpRequest, HttpResponse httpResponse) {
+                        httpResponse.setStatusCode(200);
+                        httpResponse.setBody(served.incrementAndGet() == 1 ? "{\"users\" : [ {" : USERS_JSON);
+                    }
+                });
+        IterablePublisher<Directory.Users.List> upstream = new IterablePublisher<>(listRequests(REQUEST_COUNT), null);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+
+        new AsyncRequestPublisher<Users>(upstream, MAX_CONCURRENCY, true).subscribe(subscriber);
+        subscriber.awaitTermination();
+
+        assertTrue(subscriber.completed);
+        assertEquals(REQUEST_COUNT, subscriber.results.size());
+        int failures = 0;
+        for (RequestResult<Users> result : subscriber.results) {
+            if (!result.isSuccess()) {
+                failures++;
+            }
+        }
+        assertEquals(1, failures);
+    }
+
+    @Test
+    public void shouldPropagateUpstreamErrorAfterPendingResults() throws Exception {
+        server.handle(Method.GET, "/users").with(200, "application/json", USERS_JSON);
+        IllegalStateException upstreamError = new IllegalStateException("Upstream failure");
+        IterablePublisher<Directory.Users.List> upstream = new IterablePublisher<>(listRequests(2), upstreamError);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+
+        new AsyncRequestPublisher<Users>(upstream, MAX_CONCURRENCY, true).subscribe(subscriber);
+        subscriber.awaitTermination();
+
+        assertFalse(subscriber.completed);
+        assertSame(upstreamError, subscriber.error);
+        assertEquals(2, subscriber.results.size());
+    }
+
+    @Test
+    public void shouldStopPullingRequestsOnceCancelled() throws Exception {
+        server.handle(Method.GET, "/users").with(200, "application/json", USERS_JSON);
+        IterablePublisher<Directory.Users.List> upstream = new IterablePublisher<>(listRequests(REQUEST_COUNT), null);
+        RecordingSubscriber subscriber = new RecordingSubscriber() {
+            @Override
+            public void onNext(RequestResult<Users> result) {
+                results.add(result);
+                subscription.cancel();
+                done = true;
+            }
+        };
+
+        new AsyncRequestPublisher<Users>(upstream, MAX_CONCURRENCY, false).subscribe(subscriber);
+        subscriber.awaitTermination();
+        // Let the requests still executing complete
+        Thread.sleep(500L);
+
+        assertTrue(upstream.cancelled);
+        assertEquals(1, subscriber.results.size());
+        assertEquals(MAX_CONCURRENCY, upstream.emitted);
+    }
+
+    @Test
+    public void shouldCancelUpstreamSeriallyWhileResultsArrive() throws Exception {
+        server.handle(Method.GET, "/users").with(200, "application/json", USERS_JSON);
+        int requestCount = 1000;
+        IterablePublisher<Directory.Users.List> upstream = new IterablePublisher<>(listRequests(requestCount), null);
+        RecordingSubscriber subscriber = new RecordingSubscriber() {
+            @Override
+            public void onSubscribe(Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(RequestResult<Users> result) {
+                results.add(result);
+            }
+        };
+
+        new AsyncRequestPublisher<Users>(upstream, MAX_CONCURRENCY, false).subscribe(subscriber);
+        while (subscriber.results.size() < 10) {
+            Thread.sleep(1L);
+        }
+        // From the test thread, while the I/O reactor threads keep pulling requests from upstream
+        subscriber.subscription.cancel();
+        Thread.sleep(500L);
+
+        assertTrue(upstream.cancelled);
+        assertFalse(upstream.concurrentSignals);
+        assertFalse(subscriber.done);
+        assertTrue(upstream.emitted < requestCount);
+    }
+
+    @Test
+    public void shouldRejectNonPositiveRequest() throws Exception {
+        IterablePublisher<Directory.Users.List> upstream = new IterablePublisher<>(listRequests(REQUEST_COUNT), null);
+        RecordingSubscriber subscriber = new RecordingSubscriber() {
+            @Override
+            public void onSubscribe(Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(0);
+            }
+        };
+
+        new AsyncRequestPublisher<Users>(upstream, MAX_CONCURRENCY, true).subscribe(subscriber);
+        subscriber.awaitTermination();
+
+        assertTrue(subscriber.error instanceof IllegalArgumentException);
+        assertTrue(upstream.cancelled);
+    }
+
+    @Test
+    public void shouldRejectSecondSubscriber() throws Exception {
+        server.handle(Method.GET, "/users").with(200, "application/json", USERS_JSON);
+        AsyncRequestPublisher<Users> publisher = new AsyncRequestPublisher<Users>(new IterablePublisher<>(listRequests(1), null), MAX_CONCURRENCY, true);
+        RecordingSubscriber first = new RecordingSubscriber();
+        RecordingSubscriber second = new RecordingSubscriber();
+
+        publisher.subscribe(first);
+        publisher.subscribe(second);
+        first.awaitTermination();
+        second.awaitTermination();
+
+        assertTrue(first.completed);
+        assertNull(first.error);
+        assertTrue(second.error instanceof IllegalStateException);
+    }
+
+    private List<Directory.Users.List> listRequests(int count) throws IOException {
+        List<Directory.Users.List> requests = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            requests.add(directory.users().list().setCustomer("customer" + i));
+        }
+        return requests;
+    }
+
+    /**
+     * Requests results one by one, recording them and the termination signal.
+     */
+    private static class RecordingSubscriber implements Subscriber<RequestResult<Users>> {
+        protected final List<RequestResult<Users>> results = Collections.synchronizedList(new ArrayList<RequestResult<Users>>());
+        protected Subscription subscription;
+        protected volatile Throwable error;
+        protected volatile boolean completed;
+        protected volatile boolean done;
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(RequestResult<Users> result) {
+            results.add(result);
+            subscription.request(1);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            error = t;
+            done = true;
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+            done = true;
+        }
+
+        public void awaitTermination() throws InterruptedException {
+            while (!done) {
+                Thread.sleep(100L);
+            }
+        }
+    }
+
+    /**
+     * Emits the elements of a list on demand, then completes or fails with the given error. Records the highest number
+     * of elements requested and not emitted yet, and whether request() and cancel() were ever called concurrently.
+     */
+    private static class IterablePublisher<E extends AbstractGoogleClientRequest<?>> implements Publisher<E> {
+        private final Iterator<E> iterator;
+        private final Throwable error;
+        private long outstanding;
+        private volatile long maxOutstanding;
+        private volatile int emitted;
+        private volatile boolean cancelled;
+        private volatile boolean concurrentSignals;
+        private final AtomicInteger signalling = new AtomicInteger();
+
+        public IterablePublisher(List<E> elements, Throwable error) {
+            this.iterator = elements.iterator();
+            this.error = error;
+        }
+
+        @Override
+        public void subscribe(final Subscriber<? super E> subscriber) {
+            subscriber.onSubscribe(new Subscription() {
+                private boolean terminated;
+
+                @Override
+                public void request(long n) {
+                    enter();
+                    try {
+                        emit(n);
+                    } finally {
+                        signalling.decrementAndGet();
+                    }
+                }
+
+                private synchronized void emit(long n) {
+                    outstanding += n;
+                    maxOutstanding = Math.max(maxOutstanding, outstanding);
+                    while (outstanding > 0 && iterator.hasNext() && !cancelled) {
+                        outstanding--;
+                        emitted++;
+                        subscriber.onNext(iterator.next());
+                    }
+                    if (!iterator.hasNext() && !terminated && !cancelled) {
+                        terminated = true;
+                        if (error == null) {
+                            subscriber.onComplete();
+                        } else {
+                            subscriber.onError(error);
+                        }
+                    }
+                }
+
+                @Override
+                public void cancel() {
+                    enter();
+                    cancelled = true;
+                    signalling.decrementAndGet();
+                }
+            });
+        }
+
+        private void enter() {
+            if (signalling.getAndIncrement() != 0) {
+                concurrentSignals = true;
+            }
+        }
+    }
+}
@@ -1,8 +1,12 @@
 package com.github.dhatanian.googlenio;
 
+import com.google.api.client.googleapis.services.AbstractGoogleClientRequest;
 import com.google.api.client.json.jackson2.JacksonFactory;
 import com.google.api.services.admin.directory.Directory;
 import com.google.api.services.admin.directory.model.Users;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
 import org.apache.http.concurrent.FutureCallback;
 import org.bigtesting.fixd.Method;
 import org.bigtesting.fixd.ServerFixture;
@@ -13,9 +17,18 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 public class GoogleAsyncClientTest {
@@ -77,6 +90,41 @@ public class GoogleAsyncClientTest {
         assertEquals(1, successResult.getUsers().size());
     }
 
+    @Test
+    public void shouldKeepWarmedUpConnectionsInPool() throws Exception {
+        // Unmatched requests are answered with a 404, the connections are still kept alive
+        ReplayServer replayServer = new ReplayServer(Collections.<RecordedExchange>emptyList());
+        replayServer.start();
+        try {
+            nioHttpTransport.warmUp(Collections.singleton("http://localhost:" + replayServer.getPort()), 4, 5, TimeUnit.SECONDS);
+
+            assertEquals(4, nioHttpTransport.getConnectionManager().getTotalStats().getAvailable());
+        } finally {
+            replayServer.stop();
+        }
+    }
+
+    @Test
+    public void shouldTimeOutWarmingUpUnresponsiveServer() throws Exception {
+        // Connections are accepted by the system but never answered
+        try (ServerSocket unresponsiveServer = new ServerSocket(0)) {
+            nioHttpTransport.warmUp(Collections.singleton("http://localhost:" + unresponsiveServer.getLocalPort()), 2, 200, TimeUnit.MILLISECONDS);
+            fail("Warm up should time out");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().startsWith("Timed out"));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectNonPositiveConnectionCount() throws Exception {
+        nioHttpTransport.warmUp(Collections.singleton("http://localhost:" + PORT), 0, 1, TimeUnit.SECONDS);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectHostWithoutScheme() throws Exception {
+        nioHttpTransport.warmUp(Collections.singleton("www.googleapis.com"), 1, 1, TimeUnit.SECONDS);
+    }
+
     @Test
     public void shouldRetryInCaseOf403Error() throws Exception {
         final int[] attemptCounts = {0};
@@ -129,10 +177,126 @@ public class GoogleAsyncClientTest {
         assertEquals(1, successResult.getUsers().size());
     }
 
+    @Test
+    public void shouldReportFailureOnceWhenCallbackThrows() throws Exception {
+        server.handle(Method.GET, "/users")
+                .with(500, "application/json", "{}");
+        final AtomicInteger failures = new AtomicInteger();
+
+        GoogleAsyncClient.executeAsync(directory.users().list().setCustomer("my_customer"), new FutureCallback<Users>() {
+            @Override
+            public void completed(Users result) {
+                done[0] = true;
+            }
+
+            @Override
+            public void failed(Exception ex) {
+                failures.incrementAndGet();
+                done[0] = true;
+                throw new IllegalStateException("Failing callback");
+            }
+
+            @Override
+            public void cancelled() {
+                done[0] = true;
+            }
+        });
+        while (!done[0]) {
+            Thread.sleep(100L);
+        }
+        Thread.sleep(200L);
+
+        assertEquals(1, failures.get());
+    }
+
+    @Test
+    public void shouldInferFieldsFromProjection() throws Exception {
+        assertEquals("nextPageToken,users(id,isAdmin,primaryEmail,suspended)", PartialResponse.projection(UsersProjection.class).getFields());
+    }
+
+    @Test
+    public void shouldRequestPartialResponse() throws Exception {
+        final String[] fields = {null};
+        server.handle(Method.GET, "/users")
+                .with(new HttpRequestHandler() {
+                    @Override
+                    public void handle(HttpRequest httpRequest, HttpResponse httpResponse) {
+                        fields[0] = httpRequest.getRequestParameter("fields");
+                        httpResponse.setStatusCode(200);
+                        httpResponse.setBody("{\n" +
+                                "  \"users\" : [ {\n" +
+                                "    \"id\" : \"100671467136357495231\",\n" +
+                                "    \"primaryEmail\" : \"anouche.sariand@revevolcloud.com\"\n" +
+                                "  }]}");
+                    }
+                });
+
+        final Users successResult = executeHttpRequestToGetUsers(directory, PartialResponse.projection(UsersProjection.class));
+
+        assertEquals("nextPageToken,users(id,isAdmin,primaryEmail,suspended)", fields[0]);
+        assertEquals("anouche.sariand@revevolcloud.com", successResult.getUsers().get(0).getPrimaryEmail());
+    }
+
+    @Test
+    public void shouldReportWireAndDecodedPayloadSizes() throws Exception {
+        final byte[] body = ("{\n" +
+                "  \"users\" : [ {\n" +
+                "    \"id\" : \"100671467136357495231\",\n" +
+                "    \"primaryEmail\" : \"anouche.sariand@revevolcloud.com\"\n" +
+                "  }, {\n" +
+                "    \"id\" : \"100671467136357495232\",\n" +
+                "    \"primaryEmail\" : \"annie.sariand@revevolcloud.com\"\n" +
+                "  }]}").getBytes("UTF-8");
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(gzipped)) {
+            gzip.write(body);
+        }
+        final byte[] wireBody = gzipped.toByteArray();
+        // The fixture server cannot send binary bodies, serve the gzip encoded response from the JDK server
+        HttpServer gzipServer = HttpServer.create(new InetSocketAddress(0), 0);
+        gzipServer.createContext("/users", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.getResponseHeaders().add("Content-Type", "application/json; charset=UTF-8");
+                exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+                exchange.sendResponseHeaders(200, wireBody.length);
+                exchange.getResponseBody().write(wireBody);
+                exchange.close();
+            }
+        });
+        gzipServer.start();
+        final long[] payload = {-1, -1};
+        PartialResponse partialResponse = PartialResponse.fields("users(id,primaryEmail)")
+                .withPayloadListener(new PartialResponse.PayloadListener() {
+                    @Override
+                    public void onPayload(AbstractGoogleClientRequest<?> request, long wireBytes, long decodedBytes) {
+                        payload[0] = wireBytes;
+                        payload[1] = decodedBytes;
+                    }
+                });
+
+        Users successResult;
+        try {
+            Directory gzipDirectory = new Directory.Builder(nioHttpTransport, new JacksonFactory(), new FakeGoogleCredential()).setRootUrl("http://localhost:" + gzipServer.getAddress().getPort()).setServicePath("/").setApplicationName("test").build();
+            successResult = executeHttpRequestToGetUsers(gzipDirectory, partialResponse);
+        } finally {
+            gzipServer.stop(0);
+        }
+
+        assertEquals(2, successResult.getUsers().size());
+        assertEquals(wireBody.length, payload[0]);
+        assertEquals(body.length, payload[1]);
+    }
+
     private Users executeHttpRequestToGetUsers() throws IOException, InterruptedException {
+        return executeHttpRequestToGetUsers(directory, null);
+    }
+
+    private Users executeHttpRequestToGetUsers(Directory directory, PartialResponse partialResponse) throws IOException, InterruptedException {
         final String[] error = {null};
         final Users[] successResult = {null};
-        GoogleAsyncClient.executeAsync(directory.users().list().setCustomer("my_customer"), new FutureCallback<Users>() {
+        Directory.Users.List request = directory.users().list().setCustomer("my_customer");
+        FutureCallback<Users> callback = new FutureCallback<Users>() {
             @Override
             public void completed(Users result) {
                 successResult[0] = result;
@@ -151,7 +315,12 @@ public class GoogleAsyncClientTest {
                 error[0] = "HTTP request should not be cancelled";
                 done[0] = true;
             }
-        });
+        };
+        if (partialResponse == null) {
+            GoogleAsyncClient.executeAsync(request, callback);
+        } else {
+            GoogleAsyncClient.executeAsync(request, callback, partialResponse);
+        }
 
         while (!done[0]) {
             Thread.sleep(100L);
@@ -162,4 +331,20 @@ public class GoogleAsyncClientTest {
         }
         return successResult[0];
     }
+
+    interface UserProjection {
+        String getId();
+
+        String getPrimaryEmail();
+
+        Boolean getIsAdmin();
+
+        boolean isSuspended();
+    }
+
+    interface UsersProjection {
+        String getNextPageToken();
+
+        List<UserProjection> getUsers();
+    }
 }
\ No newline at end of file
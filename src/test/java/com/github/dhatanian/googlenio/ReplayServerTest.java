@@ -0,0 +1,257 @@
+package com.github.dhatanian.googlenio;
+
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.services.admin.directory.Directory;
+import com.google.api.services.admin.directory.model.Users;
+import org.apache.http.Header;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.message.BasicHeader;
+import org.bigtesting.fixd.Method;
+import org.bigtesting.fixd.ServerFixture;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ReplayServerTest {
+    private static final int PORT = 6667;
+    private static final String USERS_JSON = "{\n" +
+            "  \"kind\" : \"admin#directory#users\",\n" +
+            "  \"users\" : [ {\n" +
+            "    \"id\" : \"100671467136357495231\",\n" +
+            "    \"primaryEmail\" : \"anouche.sariand@revevolcloud.com\"\n" +
+            "  }]}";
+    private ServerFixture server;
+    private ReplayServer replayServer;
+    private NIOHttpTransport nioHttpTransport = new NIOHttpTransport();
+    private File recording;
+
+    @Before
+    public void beforeEachTest() throws Exception {
+        server = new ServerFixture(PORT);
+        server.start();
+        recording = File.createTempFile("replay", ".rec");
+    }
+
+    @After
+    public void stopServers() throws IOException {
+        server.stop();
+        if (replayServer != null) {
+            replayServer.stop();
+        }
+        nioHttpTransport.shutdown();
+        recording.delete();
+    }
+
+    @Test
+    public void shouldReplayRecordedResponse() throws Exception {
+        server.handle(Method.GET, "/users")
+                .with(200, "application/json", USERS_JSON);
+
+        HttpExchangeRecorder recorder = new HttpExchangeRecorder(recording);
+        nioHttpTransport.setRecorder(recorder);
+        Users recordedResult = executeHttpRequestToGetUsers(PORT);
+        nioHttpTransport.setRecorder(null);
+        recorder.close();
+
+        List<RecordedExchange> exchanges = RecordedExchange.readAll(recording);
+        assertEquals(1, exchanges.size());
+        assertEquals(200, exchanges.get(0).getStatusCode());
+        for (Header header : exchanges.get(0).getRequestHeaders()) {
+            assertFalse("Authorization should not be recorded", "Authorization".equalsIgnoreCase(header.getName()));
+        }
+
+        replayServer = new ReplayServer(exchanges).withLatency(ReplayServer.LatencyDistribution.fixed(10));
+        replayServer.start();
+        Users replayedResult = executeHttpRequestToGetUsers(replayServer.getPort());
+
+        assertEquals(recordedResult.getUsers().get(0).getPrimaryEmail(), replayedResult.getUsers().get(0).getPrimaryEmail());
+    }
+
+    @Test
+    public void shouldKeepServingRequestsOnceRecorderIsClosed() throws Exception {
+        server.handle(Method.GET, "/users")
+                .with(200, "application/json", USERS_JSON);
+
+        HttpExchangeRecorder recorder = new HttpExchangeRecorder(recording);
+        nioHttpTransport.setRecorder(recorder);
+        recorder.close();
+        Users result = executeHttpRequestToGetUsers(PORT);
+
+        assertEquals(1, result.getUsers().size());
+        assertTrue(RecordedExchange.readAll(recording).isEmpty());
+    }
+
+    @Test
+    public void shouldReadExchangesRecordedBeforeInterruption() throws Exception {
+        server.handle(Method.GET, "/users")
+                .with(200, "application/json", USERS_JSON);
+
+        HttpExchangeRecorder recorder = new HttpExchangeRecorder(recording);
+        nioHttpTransport.setRecorder(recorder);
+        executeHttpRequestToGetUsers(PORT);
+        long firstExchangeEnd = recording.length();
+        executeHttpRequestToGetUsers(PORT);
+        nioHttpTransport.setRecorder(null);
+
+        // As left by a process dying while writing the second exchange, before closing the recorder
+        try (RandomAccessFile file = new RandomAccessFile(recording, "rw")) {
+            file.setLength((firstExchangeEnd + file.length()) / 2);
+        }
+        List<RecordedExchange> exchanges = RecordedExchange.readAll(recording);
+
+        assertEquals(1, exchanges.size());
+        assertEquals(200, exchanges.get(0).getStatusCode());
+        recorder.close();
+    }
+
+    @Test
+    public void shouldInjectTooManyRequests() throws Exception {
+        replayServer = new ReplayServer(recordedUsers()).withFault(ReplayServer.Fault.TOO_MANY_REQUESTS, 1);
+        replayServer.start();
+
+        assertEquals(429, statusCodeOf("/users"));
+    }
+
+    @Test
+    public void shouldInjectServiceUnavailable() throws Exception {
+        replayServer = new ReplayServer(recordedUsers()).withFault(ReplayServer.Fault.SERVICE_UNAVAILABLE, 1);
+        replayServer.start();
+
+        assertEquals(503, statusCodeOf("/users"));
+    }
+
+    @Test
+    public void shouldFailClientOnConnectionReset() throws Exception {
+        replayServer = new ReplayServer(recordedUsers()).withFault(ReplayServer.Fault.CONNECTION_RESET, 1);
+        replayServer.start();
+
+        assertNotNull(executeHttpRequestToGetUsersFailure(replayServer.getPort()));
+    }
+
+    @Test
+    public void shouldAnswerUnknownRequestsWithNotFound() throws Exception {
+        replayServer = new ReplayServer(recordedUsers());
+        replayServer.start();
+
+        assertEquals(200, statusCodeOf("/users"));
+        assertEquals(404, statusCodeOf("/groups"));
+    }
+
+    @Test
+    public void shouldDelayResponses() throws Exception {
+        replayServer = new ReplayServer(recordedUsers()).withLatency(ReplayServer.LatencyDistribution.fixed(500));
+        replayServer.start();
+
+        long start = System.currentTimeMillis();
+        assertEquals(200, statusCodeOf("/users"));
+        assertTrue(System.currentTimeMillis() - start >= 500);
+    }
+
+    @Test
+    public void shouldDrawLatenciesFromDistributions() throws Exception {
+        RecordedExchange exchange = recordedUsers().get(0);
+        Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            long uniform = ReplayServer.LatencyDistribution.uniform(50, 100).nextDelayMillis(exchange, random);
+            assertTrue(uniform >= 50 && uniform < 100);
+            assertTrue(ReplayServer.LatencyDistribution.exponential(100).nextDelayMillis(exchange, random) >= 0);
+        }
+        assertEquals(30, ReplayServer.LatencyDistribution.fixed(30).nextDelayMillis(exchange, random));
+        assertEquals(exchange.getDurationMillis(), ReplayServer.LatencyDistribution.recorded().nextDelayMillis(exchange, random));
+        assertEquals(0, ReplayServer.LatencyDistribution.recorded().nextDelayMillis(null, random));
+    }
+
+    private static List<RecordedExchange> recordedUsers() throws IOException {
+        return Collections.singletonList(new RecordedExchange("GET", "https://www.googleapis.com/users?customer=my_customer",
+                new Header[0], 200, "OK", new Header[]{new BasicHeader("Content-Type", "application/json; charset=UTF-8")},
+                USERS_JSON.getBytes("UTF-8"), 120));
+    }
+
+    private int statusCodeOf(String path) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + replayServer.getPort() + path + "?customer=my_customer").openConnection();
+        try {
+            return connection.getResponseCode();
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private Exception executeHttpRequestToGetUsersFailure(int port) throws IOException, InterruptedException {
+        Directory directory = new Directory.Builder(nioHttpTransport, new JacksonFactory(), new FakeGoogleCredential()).setRootUrl("http://localhost:" + port).setServicePath("/").setApplicationName("test").build();
+        final Boolean[] done = {false};
+        final Exception[] failure = {null};
+        GoogleAsyncClient.executeAsync(directory.users().list().setCustomer("my_customer"), new FutureCallback<Users>() {
+            @Override
+            public void completed(Users result) {
+                done[0] = true;
+            }
+
+            @Override
+            public void failed(Exception ex) {
+                failure[0] = ex;
+                done[0] = true;
+            }
+
+            @Override
+            public void cancelled() {
+                done[0] = true;
+            }
+        });
+
+        while (!done[0]) {
+            Thread.sleep(100L);
+        }
+        return failure[0];
+    }
+
+    private Users executeHttpRequestToGetUsers(int port) throws IOException, InterruptedException {
+        Directory directory = new Directory.Builder(nioHttpTransport, new JacksonFactory(), new FakeGoogleCredential()).setRootUrl("http://localhost:" + port).setServicePath("/").setApplicationName("test").build();
+        final Boolean[] done = {false};
+        final String[] error = {null};
+        final Users[] successResult = {null};
+        GoogleAsyncClient.executeAsync(directory.users().list().setCustomer("my_customer"), new FutureCallback<Users>() {
+            @Override
+            public void completed(Users result) {
+                successResult[0] = result;
+                done[0] = true;
+            }
+
+            @Override
+            public void failed(Exception ex) {
+                ex.printStackTrace();
+                error[0] = "HTTP request should not fail";
+                done[0] = true;
+            }
+
+            @Override
+            public void cancelled() {
+                error[0] = "HTTP request should not be cancelled";
+                done[0] = true;
+            }
+        });
+
+        while (!done[0]) {
+            Thread.sleep(100L);
+        }
+
+        if (error[0] != null) {
+            fail(error[0]);
+        }
+        return successResult[0];
+    }
+}